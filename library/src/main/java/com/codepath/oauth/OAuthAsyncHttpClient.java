@@ -31,37 +31,47 @@ public class OAuthAsyncHttpClient extends AsyncHttpClient {
         return logger;
     }
 
-    public static OAuthAsyncHttpClient create(String consumerKey, String consumerSecret, OAuth1AccessToken token) {
+    // Signs every request with the OAuth1 consumer and access token
+    public static Interceptor createSigningInterceptor(String consumerKey, String consumerSecret, OAuth1AccessToken token) {
         OkHttpOAuthConsumer consumer = new OkHttpOAuthConsumer(consumerKey, consumerSecret);
+        consumer.setTokenWithSecret(token.getToken(), token.getTokenSecret());
+        return new SigningInterceptor(consumer);
+    }
+
+    // Adds the OAuth2 bearer token to the Authorization header of every request
+    public static Interceptor createBearerInterceptor(final OAuth2AccessToken token) {
+        final String bearer = String.format("%s %s", BEARER, token.getAccessToken());
+
+        return new Interceptor() {
+            @NotNull
+            @Override
+            public Response intercept(@NotNull Chain chain) throws IOException {
+                Request originalRequest = chain.request();
+                Request authedRequest = originalRequest.newBuilder().header("Authorization", bearer).build();
+                return chain.proceed(authedRequest);
+            }
+        };
+    }
+
+    public static OAuthAsyncHttpClient create(String consumerKey, String consumerSecret, OAuth1AccessToken token) {
         HttpLoggingInterceptor logging = createLogger();
 
-        consumer.setTokenWithSecret(token.getToken(), token.getTokenSecret());
         OkHttpClient httpClient = new OkHttpClient.Builder()
                 .addInterceptor(logging)
                 .addNetworkInterceptor(new StethoInterceptor())
-                .addInterceptor(new SigningInterceptor(consumer)).build();
+                .addInterceptor(createSigningInterceptor(consumerKey, consumerSecret, token)).build();
 
         OAuthAsyncHttpClient asyncHttpClient = new OAuthAsyncHttpClient(httpClient);
         return asyncHttpClient;
     }
 
     public static OAuthAsyncHttpClient create(final OAuth2AccessToken token) {
-        final String bearer = String.format("%s %s", BEARER, token.getAccessToken());
-
         HttpLoggingInterceptor logging = createLogger();
 
         OkHttpClient httpClient = new OkHttpClient.Builder()
                 .addInterceptor(logging)
                 .addNetworkInterceptor(new StethoInterceptor())
-                .addInterceptor(new Interceptor() {
-                                    @NotNull
-                                    @Override
-                                    public Response intercept(@NotNull Chain chain) throws IOException {
-                                        Request originalRequest = chain.request();
-                                        Request authedRequest = originalRequest.newBuilder().header("Authorization", bearer).build();
-                                        return chain.proceed(authedRequest);
-                                    }
-                                }).build();
+                .addInterceptor(createBearerInterceptor(token)).build();
 
         OAuthAsyncHttpClient asyncHttpClient = new OAuthAsyncHttpClient(httpClient);
         return asyncHttpClient;
@@ -20,7 +20,7 @@ public abstract class OAuthBaseClient {
     protected String baseUrl;
     protected Context context;
     protected OAuthTokenClient tokenClient;
-    protected OAuthAsyncHttpClient client;
+    protected volatile OAuthAsyncHttpClient client;
     protected SharedPreferences prefs;
     protected SharedPreferences.Editor editor;
     protected OAuthAccessHandler accessHandler;
@@ -35,7 +35,15 @@ public abstract class OAuthBaseClient {
     protected static HashMap<Class<? extends OAuthBaseClient>, OAuthBaseClient> instances =
             new HashMap<Class<? extends OAuthBaseClient>, OAuthBaseClient>();
 
-    public static OAuthBaseClient getInstance(Class<? extends OAuthBaseClient> klass, Context context) {
+    // Guards the in-memory access token, the signed client and the tokens stored in preferences,
+    // which are written from the token request thread as well as the UI thread
+    private final Object tokenLock = new Object();
+    // Access token the signed client was built with, only set once the client exists so that
+    // isAuthenticated() doesn't report true while the tokenClient's token is still being stored
+    private volatile Token signedAccessToken;
+
+    // Synchronized so concurrent callers never construct two clients for the same class
+    public static synchronized OAuthBaseClient getInstance(Class<? extends OAuthBaseClient> klass, Context context) {
         OAuthBaseClient instance = instances.get(klass);
         if (instance == null) {
             try {
@@ -60,10 +68,13 @@ public abstract class OAuthBaseClient {
                 if (requestToken != null) {
                     if (oAuthVersion == OAUTH1_VERSION) {  // store for OAuth1.0a
                         OAuth1RequestToken oAuth1RequestToken = (OAuth1RequestToken) requestToken;
-                        editor.putString(OAUTH1_REQUEST_TOKEN, oAuth1RequestToken.getToken());
-                        editor.putString(OAUTH1_REQUEST_TOKEN_SECRET, oAuth1RequestToken.getTokenSecret());
-                        editor.putInt(OAuthConstants.VERSION, 1);
-                        editor.commit();
+                        synchronized (tokenLock) {
+                            editor.putString(OAUTH1_REQUEST_TOKEN, oAuth1RequestToken.getToken());
+                            editor.putString(OAUTH1_REQUEST_TOKEN_SECRET, oAuth1RequestToken.getTokenSecret());
+                            editor.putInt(OAuthConstants.VERSION, 1);
+                            // apply() updates prefs in memory right away, so the browser doesn't wait on disk
+                            editor.apply();
+                        }
                     }
                 }
                 // Launch the authorization URL in the browser
@@ -74,29 +85,32 @@ public abstract class OAuthBaseClient {
                 OAuthBaseClient.this.context.startActivity(intent);
             }
 
-            // Store the access token in preferences, set the token in the tokenClient and fire the success callback
+            // Instantiate the signed client, store the access token in preferences and only then mark the
+            // client as authenticated, and fire the success callback
             @Override
             public void onReceivedAccessToken(Token accessToken, String oAuthVersion) {
 
-                if (oAuthVersion == OAUTH1_VERSION) {
-                    OAuth1AccessToken oAuth1AccessToken = (OAuth1AccessToken) accessToken;
-
+                synchronized (tokenLock) {
+                    // Set again under the lock in case clearAccessToken ran since the tokenClient set it
                     tokenClient.setAccessToken(accessToken);
-                    instantiateClient(consumerKey, consumerSecret, oAuth1AccessToken);
-                    editor.putString(OAuthConstants.TOKEN, oAuth1AccessToken.getToken());
-                    editor.putString(OAuthConstants.TOKEN_SECRET, oAuth1AccessToken.getTokenSecret());
-                    editor.putInt(OAuthConstants.VERSION, 1);
-                    editor.commit();
-                } else if (oAuthVersion == OAUTH2_VERSION) {
-                    OAuth2AccessToken oAuth2AccessToken = (OAuth2AccessToken) accessToken;
-                    instantiateClient(consumerKey, consumerSecret, oAuth2AccessToken);
-                    tokenClient.setAccessToken(accessToken);
-                    editor.putString(OAuthConstants.TOKEN, oAuth2AccessToken.getAccessToken());
-                    editor.putString(OAuthConstants.SCOPE, oAuth2AccessToken.getScope());
-                    editor.putString(OAuthConstants.REFRESH_TOKEN, oAuth2AccessToken.getRefreshToken());
-                    editor.putInt(OAuthConstants.VERSION, 2);
-                    editor.commit();
+                    if (oAuthVersion == OAUTH1_VERSION) {
+                        OAuth1AccessToken oAuth1AccessToken = (OAuth1AccessToken) accessToken;
 
+                        instantiateClient(consumerKey, consumerSecret, oAuth1AccessToken);
+                        editor.putString(OAuthConstants.TOKEN, oAuth1AccessToken.getToken());
+                        editor.putString(OAuthConstants.TOKEN_SECRET, oAuth1AccessToken.getTokenSecret());
+                        editor.putInt(OAuthConstants.VERSION, 1);
+                        editor.commit();
+                    } else if (oAuthVersion == OAUTH2_VERSION) {
+                        OAuth2AccessToken oAuth2AccessToken = (OAuth2AccessToken) accessToken;
+                        instantiateClient(consumerKey, consumerSecret, oAuth2AccessToken);
+                        editor.putString(OAuthConstants.TOKEN, oAuth2AccessToken.getAccessToken());
+                        editor.putString(OAuthConstants.SCOPE, oAuth2AccessToken.getScope());
+                        editor.putString(OAuthConstants.REFRESH_TOKEN, oAuth2AccessToken.getRefreshToken());
+                        editor.putInt(OAuthConstants.VERSION, 2);
+                        editor.commit();
+                    }
+                    signedAccessToken = accessToken;
                 }
                 accessHandler.onLoginSuccess();
             }
@@ -117,6 +131,7 @@ public abstract class OAuthBaseClient {
         if (accessToken != null) {
             tokenClient.setAccessToken(accessToken);
             instantiateClient(consumerKey, consumerSecret, accessToken);
+            signedAccessToken = accessToken;
         }
     }
 
@@ -137,6 +152,18 @@ public abstract class OAuthBaseClient {
         tokenClient.fetchRequestToken();
     }
 
+    // Fetches the request token and authorization url ahead of time (e.g. when the login screen is shown)
+    // so that a following connect() can open the browser without waiting on the network
+    public void prefetch() {
+        tokenClient.prefetchRequestToken();
+    }
+
+    // Sets how long (in milliseconds, must be positive) a prefetched request token stays valid
+    // before connect() fetches a new one
+    public void setRequestTokenTtl(long ttlMillis) {
+        tokenClient.setRequestTokenTtl(ttlMillis);
+    }
+
     // Retrieves access token given authorization url
     public void authorize(Uri uri, OAuthAccessHandler handler) {
         this.accessHandler = handler;
@@ -189,17 +216,22 @@ public abstract class OAuthBaseClient {
 
     // Removes the access tokens (for signing out)
     public void clearAccessToken() {
-        tokenClient.setAccessToken(null);
-        editor.remove(OAuthConstants.TOKEN);
-        editor.remove(OAuthConstants.TOKEN_SECRET);
-        editor.remove(OAuthConstants.REFRESH_TOKEN);
-        editor.remove(OAuthConstants.SCOPE);
-        editor.commit();
+        // Under the same lock as onReceivedAccessToken so a concurrent login can't leave the token
+        // cleared in memory but stored in preferences, or the reverse
+        synchronized (tokenLock) {
+            signedAccessToken = null;
+            tokenClient.setAccessToken(null);
+            editor.remove(OAuthConstants.TOKEN);
+            editor.remove(OAuthConstants.TOKEN_SECRET);
+            editor.remove(OAuthConstants.REFRESH_TOKEN);
+            editor.remove(OAuthConstants.SCOPE);
+            editor.commit();
+        }
     }
 
-    // Returns true if the tokenClient is authenticated; false otherwise.
+    // Returns true if the tokenClient is authenticated and the signed client is ready; false otherwise.
     public boolean isAuthenticated() {
-        return tokenClient.getAccessToken() != null;
+        return signedAccessToken != null && tokenClient.getAccessToken() != null;
     }
 
     // Sets the flags used when launching browser to authenticate through OAuth
@@ -1,6 +1,9 @@
 package com.codepath.oauth;
 
 import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.VisibleForTesting;
 
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.builder.api.BaseApi;
@@ -8,7 +11,6 @@ import com.github.scribejava.core.exceptions.OAuthException;
 import com.github.scribejava.core.model.OAuth1AccessToken;
 import com.github.scribejava.core.model.OAuth1RequestToken;
 import com.github.scribejava.core.model.OAuth2AccessToken;
-import com.github.scribejava.core.model.OAuthAsyncRequestCallback;
 import com.github.scribejava.core.model.OAuthConstants;
 import com.github.scribejava.core.model.Token;
 import com.github.scribejava.core.oauth.OAuth10aService;
@@ -16,6 +18,9 @@ import com.github.scribejava.core.oauth.OAuth20Service;
 import com.github.scribejava.core.oauth.OAuthService;
 import com.github.scribejava.httpclient.okhttp.OkHttpHttpClientConfig;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /*
  * OAuthTokenClient is responsible for managing the request and access token exchanges and then
  * signing all requests with the OAuth signature after access token has been retrieved and stored.
@@ -25,9 +30,30 @@ public class OAuthTokenClient {
 
     private BaseApi apiInstance;
     private OAuthTokenHandler handler;
-    private Token accessToken;
+    // Written from the token request thread and read from the UI thread
+    private volatile Token accessToken;
     private OAuthService service;
 
+    // Token requests are made synchronously on this pool rather than through scribe's async api:
+    // its okhttp adapter throws response parsing errors (e.g. an error page instead of a token) on
+    // the dispatcher thread without calling onThrowable, so the handler would never hear back
+    private static final ExecutorService tokenExecutor = Executors.newCachedThreadPool();
+
+    // OAuth1 request tokens are short-lived on the provider side (Twitter and friends expire them
+    // within minutes), while an OAuth2 authorize url is built locally and never goes stale
+    public static final long DEFAULT_OAUTH1_REQUEST_TOKEN_TTL = 5 * 60 * 1000;
+    public static final long DEFAULT_OAUTH2_REQUEST_TOKEN_TTL = Long.MAX_VALUE;
+
+    // Prefetched request token state, guarded by prefetchLock since the token requests complete
+    // on a background thread while fetchRequestToken is called from the UI thread
+    private final Object prefetchLock = new Object();
+    private long requestTokenTtl;
+    private Token prefetchedRequestToken;
+    private String prefetchedAuthorizeUrl;
+    private long prefetchedAt;
+    private boolean prefetchInFlight;
+    private boolean deliverPrefetch;
+
     // Requires the apiClass, consumerKey, consumerSecret and callbackUrl along with the TokenHandler
     public OAuthTokenClient(BaseApi apiInstance, String consumerKey, String consumerSecret, String callbackUrl,
                             String scope, OAuthTokenHandler handler) {
@@ -48,33 +74,137 @@ public class OAuthTokenClient {
                 .scope(scope) // OAuth2 requires scope
                 .build(apiInstance);
         }
+        this.requestTokenTtl = service.getVersion() == "1.0" ?
+                DEFAULT_OAUTH1_REQUEST_TOKEN_TTL : DEFAULT_OAUTH2_REQUEST_TOKEN_TTL;
     }
 
     // Get a request token and the authorization url
     // Once fetched, fire the onReceivedRequestToken for the request token handler
+    // Uses the prefetched token when it is still fresh, or waits on a prefetch already in flight
     // Works for both OAuth1.0a and OAuth2
     public void fetchRequestToken() {
-        if (service.getVersion() == "1.0") {
-            final OAuth10aService oAuth10aService = (OAuth10aService) service;
-            oAuth10aService.getRequestTokenAsync(new OAuthAsyncRequestCallback<OAuth1RequestToken>() {
-                @Override
-                public void onCompleted(OAuth1RequestToken requestToken) {
-                    String authorizeUrl = oAuth10aService.getAuthorizationUrl((OAuth1RequestToken) requestToken);
-                    handler.onReceivedRequestToken(requestToken, authorizeUrl, service.getVersion());
+        Token requestToken;
+        String authorizeUrl;
+        synchronized (prefetchLock) {
+            if (prefetchedAuthorizeUrl != null && !isPrefetchExpired()) {
+                requestToken = prefetchedRequestToken;
+                authorizeUrl = prefetchedAuthorizeUrl;
+                clearPrefetchedRequestToken();
+            } else if (prefetchInFlight) {
+                deliverPrefetch = true;
+                return;
+            } else {
+                clearPrefetchedRequestToken();
+                requestToken = null;
+                authorizeUrl = null;
+            }
+        }
+        if (authorizeUrl != null) {
+            handler.onReceivedRequestToken(requestToken, authorizeUrl, service.getVersion());
+        } else {
+            requestToken(false);
+        }
+    }
 
-                }
+    // Fetch the request token and authorization url in the background and cache them for the
+    // request token ttl so a later fetchRequestToken can open the browser without a round trip
+    public void prefetchRequestToken() {
+        synchronized (prefetchLock) {
+            if (prefetchInFlight || (prefetchedAuthorizeUrl != null && !isPrefetchExpired())) {
+                return;
+            }
+            clearPrefetchedRequestToken();
+            prefetchInFlight = true;
+        }
+        requestToken(true);
+    }
+
+    // Sets how long a prefetched request token is considered valid, in milliseconds
+    // A ttl of zero or less would expire every prefetch and only waste requests, so it is rejected
+    public void setRequestTokenTtl(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Request token ttl must be positive, was " + ttlMillis + "ms");
+        }
+        synchronized (prefetchLock) {
+            this.requestTokenTtl = ttlMillis;
+        }
+    }
 
+    @VisibleForTesting
+    boolean isPrefetchInFlight() {
+        synchronized (prefetchLock) {
+            return prefetchInFlight;
+        }
+    }
+
+    private void requestToken(final boolean prefetch) {
+        if (service.getVersion() == "1.0") {
+            final OAuth10aService oAuth10aService = (OAuth10aService) service;
+            tokenExecutor.execute(new Runnable() {
                 @Override
-                public void onThrowable(Throwable t) {
-                    handler.onFailure(new Exception(t.getMessage()));
+                public void run() {
+                    OAuth1RequestToken requestToken;
+                    try {
+                        requestToken = oAuth10aService.getRequestToken();
+                    } catch (Exception e) {
+                        onRequestTokenFailed(prefetch, new Exception(e.getMessage()));
+                        return;
+                    }
+                    String authorizeUrl = oAuth10aService.getAuthorizationUrl(requestToken);
+                    onRequestTokenReceived(prefetch, requestToken, authorizeUrl);
                 }
             });
-        }
-        if (service.getVersion() == "2.0") {
+        } else if (service.getVersion() == "2.0") {
             OAuth20Service oAuth20Service = (OAuth20Service) service;
             String authorizeUrl = oAuth20Service.getAuthorizationUrl(null);
-            handler.onReceivedRequestToken(null, authorizeUrl, service.getVersion());
+            onRequestTokenReceived(prefetch, null, authorizeUrl);
+        } else { // report instead of leaving a prefetch in flight forever
+            onRequestTokenFailed(prefetch, new OAuthException("Unsupported OAuth version '" +
+                    service.getVersion() + "'"));
+        }
+    }
+
+    // Either hands the token to the handler right away or caches it for a later fetchRequestToken
+    private void onRequestTokenReceived(boolean prefetch, Token requestToken, String authorizeUrl) {
+        if (prefetch) {
+            synchronized (prefetchLock) {
+                prefetchInFlight = false;
+                if (!deliverPrefetch) {
+                    prefetchedRequestToken = requestToken;
+                    prefetchedAuthorizeUrl = authorizeUrl;
+                    prefetchedAt = SystemClock.elapsedRealtime();
+                    return;
+                }
+                deliverPrefetch = false;
+            }
         }
+        handler.onReceivedRequestToken(requestToken, authorizeUrl, service.getVersion());
+    }
+
+    // A failed prefetch is only reported if fetchRequestToken is waiting on it
+    private void onRequestTokenFailed(boolean prefetch, Exception e) {
+        if (prefetch) {
+            synchronized (prefetchLock) {
+                prefetchInFlight = false;
+                if (!deliverPrefetch) {
+                    return;
+                }
+                deliverPrefetch = false;
+            }
+        }
+        handler.onFailure(e);
+    }
+
+    // Must be called while holding prefetchLock
+    private boolean isPrefetchExpired() {
+        return SystemClock.elapsedRealtime() - prefetchedAt >= requestTokenTtl;
+    }
+
+    // Must be called while holding prefetchLock
+    private void clearPrefetchedRequestToken() {
+        prefetchedRequestToken = null;
+        prefetchedAuthorizeUrl = null;
+        prefetchedAt = 0;
     }
 
     // Get the access token by exchanging the requestToken to the defined URL
@@ -87,24 +217,24 @@ public class OAuthTokenClient {
             // Use verifier token to fetch access token
 
             if (authorizedUri.getQuery().contains(OAuthConstants.VERIFIER)) {
-                String oauth_verifier = authorizedUri.getQueryParameter(OAuthConstants.VERIFIER);
-                OAuth1RequestToken oAuth1RequestToken = (OAuth1RequestToken) requestToken;
-                OAuth10aService oAuth10aService = (OAuth10aService) service;
-
-                oAuth10aService.getAccessTokenAsync(oAuth1RequestToken, oauth_verifier,
-                        new OAuthAsyncRequestCallback<OAuth1AccessToken>() {
+                final String oauth_verifier = authorizedUri.getQueryParameter(OAuthConstants.VERIFIER);
+                final OAuth1RequestToken oAuth1RequestToken = (OAuth1RequestToken) requestToken;
+                final OAuth10aService oAuth10aService = (OAuth10aService) service;
 
-                            @Override
-                            public void onCompleted(OAuth1AccessToken oAuth1AccessToken) {
-                                setAccessToken(oAuth1AccessToken);
-                                handler.onReceivedAccessToken(oAuth1AccessToken, service.getVersion());
-                            }
-
-                            @Override
-                            public void onThrowable(Throwable e) {
-                                handler.onFailure(new OAuthException(e.getMessage()));
-                            }
-                        });
+                tokenExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OAuth1AccessToken oAuth1AccessToken;
+                        try {
+                            oAuth1AccessToken = oAuth10aService.getAccessToken(oAuth1RequestToken, oauth_verifier);
+                        } catch (Exception e) {
+                            handler.onFailure(new OAuthException(e.getMessage()));
+                            return;
+                        }
+                        setAccessToken(oAuth1AccessToken);
+                        handler.onReceivedAccessToken(oAuth1AccessToken, service.getVersion());
+                    }
+                });
 
             }
             else { // verifier was null
@@ -113,19 +243,20 @@ public class OAuthTokenClient {
             }
         } else if (service.getVersion() == "2.0") {
             if (authorizedUri.getQuery().contains(OAuthConstants.CODE)) {
-                String code = authorizedUri.getQueryParameter(OAuthConstants.CODE);
-                OAuth20Service oAuth20Service = (OAuth20Service) service;
-                oAuth20Service.getAccessToken(code, new OAuthAsyncRequestCallback<OAuth2AccessToken>() {
+                final String code = authorizedUri.getQueryParameter(OAuthConstants.CODE);
+                final OAuth20Service oAuth20Service = (OAuth20Service) service;
+                tokenExecutor.execute(new Runnable() {
                     @Override
-                    public void onCompleted(OAuth2AccessToken accessToken) {
+                    public void run() {
+                        OAuth2AccessToken accessToken;
+                        try {
+                            accessToken = oAuth20Service.getAccessToken(code);
+                        } catch (Exception e) {
+                            handler.onFailure(new OAuthException(e.getMessage()));
+                            return;
+                        }
                         setAccessToken(accessToken);
                         handler.onReceivedAccessToken(accessToken, service.getVersion());
-
-                    }
-
-                    @Override
-                    public void onThrowable(Throwable t) {
-
                     }
                 });
             }
@@ -0,0 +1,51 @@
+package com.codepath.oauth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Collects latency samples from concurrent callers and reports their percentiles
+public class LatencyRecorder {
+
+    private final String name;
+    private final List<Long> samples = new ArrayList<Long>();
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    // Records the time elapsed since startNanos (taken from System.nanoTime())
+    public void record(long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        synchronized (samples) {
+            samples.add(elapsed);
+        }
+    }
+
+    public int count() {
+        synchronized (samples) {
+            return samples.size();
+        }
+    }
+
+    // Nearest-rank percentile in milliseconds, e.g. percentileMillis(99)
+    public double percentileMillis(double percentile) {
+        List<Long> sorted;
+        synchronized (samples) {
+            if (samples.isEmpty()) {
+                throw new IllegalStateException("no samples recorded for " + name);
+            }
+            sorted = new ArrayList<Long>(samples);
+        }
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1)) / 1e6;
+    }
+
+    // Summary of the percentiles, meant for assertion messages
+    public String report() {
+        return String.format(Locale.US, "%s: n=%d p50=%.1fms p95=%.1fms p99=%.1fms", name, count(),
+                percentileMillis(50), percentileMillis(95), percentileMillis(99));
+    }
+}
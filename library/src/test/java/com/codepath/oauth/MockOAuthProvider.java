@@ -0,0 +1,322 @@
+package com.codepath.oauth;
+
+import com.github.scribejava.core.builder.api.DefaultApi10a;
+import com.github.scribejava.core.builder.api.DefaultApi20;
+import com.github.scribejava.core.model.OAuth1RequestToken;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/*
+ * MockOAuthProvider is a local stand-in for an OAuth 1.0a / 2.0 provider running on MockWebServer.
+ * It issues request tokens, access tokens and serves a protected /api endpoint which only accepts
+ * requests signed with a live access token. Latency, error rate, access token expiry and a rate
+ * limit can be configured to exercise the clients under load without any real network. Expiry and
+ * the rate limit window follow an injectable Clock so tests can move time forward without sleeping.
+ */
+public class MockOAuthProvider extends Dispatcher {
+
+    public static final String OAUTH1_REQUEST_TOKEN_PATH = "/oauth1/request_token";
+    public static final String OAUTH1_AUTHORIZE_PATH = "/oauth1/authorize";
+    public static final String OAUTH1_ACCESS_TOKEN_PATH = "/oauth1/access_token";
+    public static final String OAUTH2_AUTHORIZE_PATH = "/oauth2/authorize";
+    public static final String OAUTH2_ACCESS_TOKEN_PATH = "/oauth2/access_token";
+    public static final String API_PATH = "/api/";
+
+    private static final Pattern OAUTH_TOKEN = Pattern.compile("oauth_token=\"([^\"]*)\"");
+    private static final Pattern OAUTH_VERIFIER = Pattern.compile("oauth_verifier=\"([^\"]*)\"");
+    private static final Pattern CODE = Pattern.compile("(?:^|&)code=([^&]*)");
+
+    private final MockWebServer server = new MockWebServer();
+    private final Random random = new Random(42);
+    private final AtomicInteger tokenCounter = new AtomicInteger();
+    // request token -> secret, removed once exchanged since request tokens are single use
+    private final Map<String, String> requestTokens = new ConcurrentHashMap<String, String>();
+    // access token -> expiry time in millis
+    private final Map<String, Long> accessTokens = new ConcurrentHashMap<String, Long>();
+    private final Deque<Long> requestTimes = new ArrayDeque<Long>();
+
+    // path -> number of requests received, including the rate limited and failed ones
+    private final ConcurrentHashMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger injectedErrors = new AtomicInteger();
+    private final AtomicInteger rateLimited = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    private volatile Clock clock = Clock.SYSTEM;
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile long tokenTtlMillis = Long.MAX_VALUE;
+    private int rateLimit;
+    private long rateLimitWindowMillis;
+
+    // Time source for access token expiry and the rate limit window
+    public MockOAuthProvider setClock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    // Delay applied to every response
+    public MockOAuthProvider setLatency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    // Fraction (0..1) of requests answered with a 500
+    public MockOAuthProvider setErrorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    // Lifetime of newly issued access tokens
+    public MockOAuthProvider setTokenTtl(long millis) {
+        this.tokenTtlMillis = millis;
+        return this;
+    }
+
+    // Answer with a 429 once more than maxRequests arrive within the window; 0 disables the limit
+    public synchronized MockOAuthProvider setRateLimit(int maxRequests, long windowMillis) {
+        this.rateLimit = maxRequests;
+        this.rateLimitWindowMillis = windowMillis;
+        this.requestTimes.clear();
+        return this;
+    }
+
+    public void start() throws IOException {
+        server.setDispatcher(this);
+        server.start();
+    }
+
+    public void stop() throws IOException {
+        server.shutdown();
+    }
+
+    public String url(String path) {
+        return server.url(path).toString();
+    }
+
+    public int getRequestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    public int getInjectedErrorCount() {
+        return injectedErrors.get();
+    }
+
+    public int getRateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    // Number of requests turned away for a missing, unknown or expired token
+    public int getRejectedCount() {
+        return rejected.get();
+    }
+
+    public boolean isIssuedAccessToken(String token) {
+        return accessTokens.containsKey(token);
+    }
+
+    // Scribe api whose endpoints point at this provider (OAuth1.0a)
+    public DefaultApi10a api10a() {
+        return new DefaultApi10a() {
+            @Override
+            public String getRequestTokenEndpoint() {
+                return url(OAUTH1_REQUEST_TOKEN_PATH);
+            }
+
+            @Override
+            public String getAccessTokenEndpoint() {
+                return url(OAUTH1_ACCESS_TOKEN_PATH);
+            }
+
+            @Override
+            public String getAuthorizationUrl(OAuth1RequestToken requestToken) {
+                return url(OAUTH1_AUTHORIZE_PATH) + "?oauth_token=" + requestToken.getToken();
+            }
+        };
+    }
+
+    // Scribe api whose endpoints point at this provider (OAuth2)
+    public DefaultApi20 api20() {
+        return new DefaultApi20() {
+            @Override
+            public String getAccessTokenEndpoint() {
+                return url(OAUTH2_ACCESS_TOKEN_PATH);
+            }
+
+            @Override
+            protected String getAuthorizationBaseUrl() {
+                return url(OAUTH2_AUTHORIZE_PATH);
+            }
+        };
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        String path = request.getRequestUrl().encodedPath();
+        countRequest(path);
+        if (isRateLimited()) {
+            rateLimited.incrementAndGet();
+            return new MockResponse().setResponseCode(429).setBody("rate limit exceeded");
+        }
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (shouldFail()) {
+            injectedErrors.incrementAndGet();
+            return new MockResponse().setResponseCode(500).setBody("injected failure");
+        }
+
+        String authorization = request.getHeader("Authorization");
+        if (path.equals(OAUTH1_REQUEST_TOKEN_PATH)) {
+            return oAuth1RequestToken();
+        } else if (path.equals(OAUTH1_ACCESS_TOKEN_PATH)) {
+            return oAuth1AccessToken(authorization);
+        } else if (path.equals(OAUTH2_ACCESS_TOKEN_PATH)) {
+            return oAuth2AccessToken(request.getBody().readUtf8());
+        } else if (path.startsWith(API_PATH)) {
+            return api(authorization);
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    private MockResponse oAuth1RequestToken() {
+        int id = tokenCounter.incrementAndGet();
+        String token = "request-token-" + id;
+        String secret = "request-secret-" + id;
+        requestTokens.put(token, secret);
+        return new MockResponse().setBody("oauth_token=" + token + "&oauth_token_secret=" + secret +
+                "&oauth_callback_confirmed=true");
+    }
+
+    private MockResponse oAuth1AccessToken(String authorization) {
+        String requestToken = find(OAUTH_TOKEN, authorization);
+        if (requestToken == null || find(OAUTH_VERIFIER, authorization) == null ||
+                requestTokens.remove(requestToken) == null) {
+            return reject("unknown request token or missing verifier");
+        }
+        int id = tokenCounter.incrementAndGet();
+        String token = issueAccessToken("access-token-" + id);
+        return new MockResponse().setBody("oauth_token=" + token + "&oauth_token_secret=access-secret-" + id);
+    }
+
+    private MockResponse oAuth2AccessToken(String body) {
+        if (find(CODE, body) == null) {
+            return reject("missing code");
+        }
+        int id = tokenCounter.incrementAndGet();
+        String token = issueAccessToken("bearer-token-" + id);
+        String expiresIn = tokenTtlMillis == Long.MAX_VALUE ? "" :
+                ",\"expires_in\":" + Math.max(1, tokenTtlMillis / 1000);
+        return new MockResponse().setHeader("Content-Type", "application/json")
+                .setBody("{\"access_token\":\"" + token + "\",\"token_type\":\"bearer\"" +
+                        ",\"refresh_token\":\"refresh-token-" + id + "\",\"scope\":\"read\"" + expiresIn + "}");
+    }
+
+    private MockResponse api(String authorization) {
+        String token = null;
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            token = authorization.substring("Bearer ".length());
+        } else if (authorization != null && authorization.contains("oauth_signature=")) {
+            token = find(OAUTH_TOKEN, authorization);
+        }
+        Long expiry = token == null ? null : accessTokens.get(token);
+        if (expiry == null) {
+            return reject("missing or unknown access token");
+        } else if (clock.currentTimeMillis() >= expiry) {
+            return reject("access token expired");
+        }
+        return new MockResponse().setHeader("Content-Type", "application/json").setBody("{\"ok\":true}");
+    }
+
+    private String issueAccessToken(String token) {
+        long ttl = tokenTtlMillis;
+        long now = clock.currentTimeMillis();
+        accessTokens.put(token, ttl == Long.MAX_VALUE ? Long.MAX_VALUE : now + ttl);
+        return token;
+    }
+
+    private MockResponse reject(String reason) {
+        rejected.incrementAndGet();
+        return new MockResponse().setResponseCode(401).setBody(reason);
+    }
+
+    private void countRequest(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        if (count == null) {
+            AtomicInteger added = new AtomicInteger();
+            count = requestCounts.putIfAbsent(path, added);
+            if (count == null) {
+                count = added;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private synchronized boolean isRateLimited() {
+        if (rateLimit <= 0) {
+            return false;
+        }
+        long now = clock.currentTimeMillis();
+        while (!requestTimes.isEmpty() && now - requestTimes.peekFirst() >= rateLimitWindowMillis) {
+            requestTimes.pollFirst();
+        }
+        if (requestTimes.size() >= rateLimit) {
+            return true;
+        }
+        requestTimes.addLast(now);
+        return false;
+    }
+
+    private boolean shouldFail() {
+        synchronized (random) {
+            return random.nextDouble() < errorRate;
+        }
+    }
+
+    private static String find(Pattern pattern, String value) {
+        if (value == null) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(value);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    public interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        };
+
+        long currentTimeMillis();
+    }
+
+    // Clock which only moves when advanced
+    public static class ManualClock implements Clock {
+        private final AtomicLong now = new AtomicLong();
+
+        @Override
+        public long currentTimeMillis() {
+            return now.get();
+        }
+
+        public void advance(long millis) {
+            now.addAndGet(millis);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.codepath.oauth;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import com.github.scribejava.core.builder.api.BaseApi;
+import com.github.scribejava.core.builder.api.DefaultApi20;
+import com.github.scribejava.core.model.Token;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codepath.oauth.OAuthStressTest.CALLBACK_URL;
+import static com.codepath.oauth.OAuthStressTest.CONSUMER_SECRET;
+import static com.codepath.oauth.OAuthStressTest.callbackUri;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Races getInstance, access token exchanges and clearAccessToken against each other and checks that
+ * the shared client state (instances, the signed client and the stored tokens) stays consistent.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OAuthBaseClientConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int SWAPS = 200;
+    private static final long MAX_LATENCY_MILLIS = 5000;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private MockOAuthProvider provider;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new MockOAuthProvider();
+        provider.start();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        provider.stop();
+    }
+
+    @Test
+    public void getInstanceCreatesOneClientUnderContention() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<OAuthBaseClient>> futures = new ArrayList<Future<OAuthBaseClient>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<OAuthBaseClient>() {
+                @Override
+                public OAuthBaseClient call() throws Exception {
+                    start.await();
+                    return OAuthBaseClient.getInstance(SlowClient.class, context);
+                }
+            }));
+        }
+        start.countDown();
+
+        OAuthBaseClient instance = futures.get(0).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(instance);
+        for (Future<OAuthBaseClient> future : futures) {
+            assertSame(instance, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertEquals(1, SlowClient.constructions.get());
+    }
+
+    @Test
+    public void oAuth1SignedClientIsBuiltBeforeTokenIsPublished() throws Exception {
+        TestClient client = new TestClient(provider.api10a(), "oauth1-publish");
+
+        login(client, connect(client));
+
+        // isAuthenticated() must never be true while the signed client is missing or stale
+        assertEquals(Collections.singletonList(false), client.authenticatedAtInstantiation);
+        assertTrue(client.isAuthenticated());
+        assertNotNull(client.client);
+    }
+
+    @Test
+    public void oAuth2SignedClientIsBuiltBeforeTokenIsPublished() throws Exception {
+        TestClient client = new TestClient(provider.api20(), "oauth2-publish");
+
+        login(client, callbackUri(null));
+
+        assertEquals(Collections.singletonList(false), client.authenticatedAtInstantiation);
+        assertTrue(client.isAuthenticated());
+        assertNotNull(client.client);
+    }
+
+    @Test
+    public void clearDuringAccessTokenExchangeKeepsStateConsistent() throws Exception {
+        final TestClient client = new TestClient(provider.api10a(), "oauth1-clear");
+        Uri callback = connect(client);
+        final Thread clear = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                client.clearAccessToken();
+            }
+        });
+        // Sign out from another thread right in the middle of storing the new access token
+        client.onInstantiate = new Runnable() {
+            @Override
+            public void run() {
+                clear.start();
+                try {
+                    clear.join(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        login(client, callback);
+        clear.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertConsistent(client);
+    }
+
+    @Test
+    public void tokenSwapsUnderLoadKeepStateConsistent() throws Exception {
+        final TestClient client = new TestClient(provider.api20(), "oauth2-swaps");
+        LatencyRecorder latency = new LatencyRecorder("token swap");
+
+        for (int i = 0; i < SWAPS; i++) {
+            client.clearAccessToken();
+            long start = System.nanoTime();
+            final LoginHandler handler = new LoginHandler();
+            Future<?> login = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    client.authorize(callbackUri(null), handler);
+                }
+            });
+            Future<?> clear = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    client.clearAccessToken();
+                }
+            });
+            login.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            clear.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            handler.await();
+            latency.record(start);
+
+            assertConsistent(client);
+        }
+
+        assertEquals(SWAPS, latency.count());
+        assertTrue(latency.report(), latency.percentileMillis(99) < MAX_LATENCY_MILLIS);
+    }
+
+    // The in-memory access token and the one stored in preferences are either both set or both cleared
+    private static void assertConsistent(TestClient client) {
+        Token inMemory = client.getTokenClient().getAccessToken();
+        Token stored = client.checkAccessToken();
+        assertEquals("in memory: " + inMemory + ", stored: " + stored, inMemory == null, stored == null);
+    }
+
+    // Starts the OAuth1 flow and returns the callback uri once the request token has been stored
+    private static Uri connect(TestClient client) throws Exception {
+        client.connect();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        Token requestToken;
+        while ((requestToken = client.getOAuth1RequestToken()) == null) {
+            assertTrue("request token was not stored", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return callbackUri(requestToken);
+    }
+
+    private static void login(TestClient client, Uri callback) throws Exception {
+        LoginHandler handler = new LoginHandler();
+        client.authorize(callback, handler);
+        handler.await();
+    }
+
+    private static class LoginHandler implements OAuthBaseClient.OAuthAccessHandler {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Exception failure;
+
+        @Override
+        public void onLoginSuccess() {
+            done.countDown();
+        }
+
+        @Override
+        public void onLoginFailure(Exception e) {
+            failure = e;
+            done.countDown();
+        }
+
+        void await() throws Exception {
+            assertTrue("login did not complete", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    // Records whether the client already reported itself authenticated each time the signed client is built
+    static class TestClient extends OAuthBaseClient {
+        final List<Boolean> authenticatedAtInstantiation = Collections.synchronizedList(new ArrayList<Boolean>());
+        volatile Runnable onInstantiate;
+
+        TestClient(BaseApi api, String consumerKey) {
+            super(RuntimeEnvironment.application, api, "http://localhost", consumerKey, CONSUMER_SECRET, null,
+                    CALLBACK_URL);
+            setRequestIntentFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        }
+
+        @Override
+        public void instantiateClient(String consumerKey, String consumerSecret, Token token) {
+            if (authenticatedAtInstantiation != null) { // null while the superclass constructor runs
+                authenticatedAtInstantiation.add(isAuthenticated());
+                Runnable hook = onInstantiate;
+                if (hook != null) {
+                    hook.run();
+                }
+            }
+            super.instantiateClient(consumerKey, consumerSecret, token);
+        }
+    }
+
+    // Slow to construct, so concurrent getInstance calls overlap unless they are serialized
+    public static class SlowClient extends OAuthBaseClient {
+        static final AtomicInteger constructions = new AtomicInteger();
+
+        public SlowClient(Context context) {
+            super(context, new DefaultApi20() {
+                @Override
+                public String getAccessTokenEndpoint() {
+                    return "http://localhost/oauth2/access_token";
+                }
+
+                @Override
+                protected String getAuthorizationBaseUrl() {
+                    return "http://localhost/oauth2/authorize";
+                }
+            }, "http://localhost", "slow-client", CONSUMER_SECRET, null, CALLBACK_URL);
+            constructions.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
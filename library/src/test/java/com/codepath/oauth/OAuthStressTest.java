@@ -0,0 +1,276 @@
+package com.codepath.oauth;
+
+import android.net.Uri;
+
+import com.github.scribejava.core.builder.api.BaseApi;
+import com.github.scribejava.core.model.OAuth1AccessToken;
+import com.github.scribejava.core.model.OAuth1RequestToken;
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.model.Token;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Drives concurrent token exchanges and signed api calls against MockOAuthProvider and checks
+ * that every exchange completes exactly once, only injected errors fail, and latency stays bounded.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OAuthStressTest {
+
+    static final String CONSUMER_KEY = "consumer-key";
+    static final String CONSUMER_SECRET = "consumer-secret";
+    static final String CALLBACK_URL = "oauth://codepath.com";
+
+    private static final int THREADS = 16;
+    private static final int EXCHANGES = 64;
+    private static final int CALLS = 200;
+    private static final long LATENCY_MILLIS = 20;
+    private static final long MAX_LATENCY_MILLIS = 5000;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private MockOAuthProvider provider;
+    private ExecutorService executor;
+
+    private final Queue<Token> accessTokens = new ConcurrentLinkedQueue<Token>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger callbacks = new AtomicInteger();
+    // access tokens handed to the handler before the token client was signing with them
+    private final AtomicInteger unpublished = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new MockOAuthProvider();
+        provider.start();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        provider.stop();
+    }
+
+    @Test
+    public void oAuth1TokenExchangesUnderLoad() throws Exception {
+        provider.setLatency(LATENCY_MILLIS).setErrorRate(0.1);
+        LatencyRecorder latency = new LatencyRecorder("OAuth1 token exchange");
+
+        runExchanges(provider.api10a(), EXCHANGES, latency);
+
+        assertExchangesCompleted(EXCHANGES);
+        // one round trip for the request token and one for the access token
+        assertTrue(latency.report(), latency.percentileMillis(50) >= 2 * LATENCY_MILLIS);
+        assertTrue(latency.report(), latency.percentileMillis(99) < MAX_LATENCY_MILLIS);
+    }
+
+    @Test
+    public void oAuth2TokenExchangesUnderLoad() throws Exception {
+        provider.setLatency(LATENCY_MILLIS).setErrorRate(0.1);
+        LatencyRecorder latency = new LatencyRecorder("OAuth2 token exchange");
+
+        runExchanges(provider.api20(), EXCHANGES, latency);
+
+        assertExchangesCompleted(EXCHANGES);
+        assertTrue(latency.report(), latency.percentileMillis(50) >= LATENCY_MILLIS);
+        assertTrue(latency.report(), latency.percentileMillis(99) < MAX_LATENCY_MILLIS);
+    }
+
+    @Test
+    public void signedApiCallsUnderLoad() throws Exception {
+        OkHttpClient oAuth1Client = new OkHttpClient.Builder()
+                .addInterceptor(OAuthAsyncHttpClient.createSigningInterceptor(CONSUMER_KEY, CONSUMER_SECRET,
+                        (OAuth1AccessToken) exchange(provider.api10a()))).build();
+        OkHttpClient oAuth2Client = new OkHttpClient.Builder()
+                .addInterceptor(OAuthAsyncHttpClient.createBearerInterceptor(
+                        (OAuth2AccessToken) exchange(provider.api20()))).build();
+        provider.setLatency(LATENCY_MILLIS);
+        LatencyRecorder latency = new LatencyRecorder("signed api call");
+
+        List<Integer> codes = callApi(oAuth1Client, CALLS, latency);
+        codes.addAll(callApi(oAuth2Client, CALLS, latency));
+
+        assertEquals(2 * CALLS, Collections.frequency(codes, 200));
+        assertEquals(0, provider.getRejectedCount());
+        assertTrue(latency.report(), latency.percentileMillis(50) >= LATENCY_MILLIS);
+        assertTrue(latency.report(), latency.percentileMillis(99) < MAX_LATENCY_MILLIS);
+    }
+
+    @Test
+    public void rateLimitedApiCallsAreRejected() throws Exception {
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(OAuthAsyncHttpClient.createSigningInterceptor(CONSUMER_KEY, CONSUMER_SECRET,
+                        (OAuth1AccessToken) exchange(provider.api10a()))).build();
+        provider.setRateLimit(20, TimeUnit.MINUTES.toMillis(1));
+
+        List<Integer> codes = callApi(client, 100, new LatencyRecorder("rate limited api call"));
+
+        assertEquals(20, Collections.frequency(codes, 200));
+        assertEquals(80, Collections.frequency(codes, 429));
+        assertEquals(80, provider.getRateLimitedCount());
+    }
+
+    @Test
+    public void expiredAccessTokenIsRejected() throws Exception {
+        MockOAuthProvider.ManualClock clock = new MockOAuthProvider.ManualClock();
+        provider.setClock(clock).setTokenTtl(TimeUnit.MINUTES.toMillis(1));
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(OAuthAsyncHttpClient.createBearerInterceptor(
+                        (OAuth2AccessToken) exchange(provider.api20()))).build();
+
+        clock.advance(TimeUnit.MINUTES.toMillis(1) - 1);
+        assertEquals(Collections.singletonList(200), callApi(client, 1, new LatencyRecorder("live token")));
+        clock.advance(1);
+        assertEquals(Collections.singletonList(401), callApi(client, 1, new LatencyRecorder("expired token")));
+        assertEquals(1, provider.getRejectedCount());
+    }
+
+    // Every exchange reports exactly once, only the injected errors fail and every token is distinct
+    private void assertExchangesCompleted(int count) {
+        assertEquals(count, callbacks.get());
+        assertEquals(provider.getInjectedErrorCount(), failures.get());
+        assertEquals(count - failures.get(), accessTokens.size());
+        assertEquals(0, unpublished.get());
+        Set<String> distinct = new HashSet<String>();
+        for (Token token : accessTokens) {
+            String value = tokenValue(token);
+            assertTrue(provider.isIssuedAccessToken(value));
+            assertTrue(distinct.add(value));
+        }
+    }
+
+    // Runs a single exchange without latency or errors and returns its access token
+    private Token exchange(BaseApi api) throws Exception {
+        runExchanges(api, 1, new LatencyRecorder("setup exchange"));
+        assertEquals(0, failures.get());
+        return accessTokens.poll();
+    }
+
+    private void runExchanges(BaseApi api, int count, LatencyRecorder latency) throws Exception {
+        CountDownLatch done = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            final Exchange exchange = new Exchange(api, done, latency);
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    exchange.start();
+                }
+            });
+        }
+        assertTrue("token exchanges did not complete", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    // Issues the calls concurrently and returns their response codes
+    private List<Integer> callApi(final OkHttpClient client, int calls, final LatencyRecorder latency)
+            throws Exception {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < calls; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    long start = System.nanoTime();
+                    Request request = new Request.Builder()
+                            .url(provider.url(MockOAuthProvider.API_PATH + "statuses")).build();
+                    Response response = client.newCall(request).execute();
+                    try {
+                        return response.code();
+                    } finally {
+                        response.close();
+                        latency.record(start);
+                    }
+                }
+            }));
+        }
+        List<Integer> codes = new ArrayList<Integer>();
+        for (Future<Integer> future : futures) {
+            codes.add(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        return codes;
+    }
+
+    static String tokenValue(Token token) {
+        if (token instanceof OAuth1AccessToken) {
+            return ((OAuth1AccessToken) token).getToken();
+        }
+        return ((OAuth2AccessToken) token).getAccessToken();
+    }
+
+    // Callback uri the provider redirects to once the user approves access in the browser
+    static Uri callbackUri(Token requestToken) {
+        if (requestToken instanceof OAuth1RequestToken) {
+            return Uri.parse(CALLBACK_URL + "?oauth_token=" + ((OAuth1RequestToken) requestToken).getToken() +
+                    "&oauth_verifier=verifier");
+        }
+        return Uri.parse(CALLBACK_URL + "?code=code");
+    }
+
+    // Walks one OAuthTokenClient through the request token and access token phases
+    private class Exchange implements OAuthTokenClient.OAuthTokenHandler {
+        private final OAuthTokenClient tokenClient;
+        private final CountDownLatch done;
+        private final LatencyRecorder latency;
+        private long startNanos;
+
+        Exchange(BaseApi api, CountDownLatch done, LatencyRecorder latency) {
+            this.tokenClient = new OAuthTokenClient(api, CONSUMER_KEY, CONSUMER_SECRET, CALLBACK_URL, null, this);
+            this.done = done;
+            this.latency = latency;
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+            tokenClient.fetchRequestToken();
+        }
+
+        @Override
+        public void onReceivedRequestToken(Token requestToken, String authorizeUrl, String oAuthVersion) {
+            tokenClient.fetchAccessToken(requestToken, callbackUri(requestToken));
+        }
+
+        @Override
+        public void onReceivedAccessToken(Token accessToken, String oAuthVersion) {
+            latency.record(startNanos);
+            if (tokenClient.getAccessToken() != accessToken) {
+                unpublished.incrementAndGet();
+            }
+            accessTokens.add(accessToken);
+            finish();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            failures.incrementAndGet();
+            finish();
+        }
+
+        private void finish() {
+            callbacks.incrementAndGet();
+            done.countDown();
+        }
+    }
+}
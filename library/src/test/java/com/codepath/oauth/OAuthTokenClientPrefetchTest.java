@@ -0,0 +1,225 @@
+package com.codepath.oauth;
+
+import android.os.SystemClock;
+
+import com.github.scribejava.core.builder.api.BaseApi;
+import com.github.scribejava.core.model.OAuth1RequestToken;
+import com.github.scribejava.core.model.Token;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.codepath.oauth.MockOAuthProvider.OAUTH1_REQUEST_TOKEN_PATH;
+import static com.codepath.oauth.OAuthStressTest.CALLBACK_URL;
+import static com.codepath.oauth.OAuthStressTest.CONSUMER_KEY;
+import static com.codepath.oauth.OAuthStressTest.CONSUMER_SECRET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Checks that a prefetched request token is handed to fetchRequestToken while it is fresh, exactly once,
+ * and that prefetches still in flight, expired or failed are handled without extra or missing callbacks.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OAuthTokenClientPrefetchTest {
+
+    private static final long TTL_MILLIS = 60 * 1000;
+    // Long enough that fetchRequestToken is always called while the prefetch is still in flight
+    private static final long SLOW_LATENCY_MILLIS = 500;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private MockOAuthProvider provider;
+    private RecordingHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new MockOAuthProvider();
+        provider.start();
+        handler = new RecordingHandler();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        provider.stop();
+    }
+
+    @Test
+    public void freshPrefetchIsServedWithoutAnotherRequest() throws Exception {
+        OAuthTokenClient tokenClient = newTokenClient(provider.api10a());
+
+        tokenClient.prefetchRequestToken();
+        awaitPrefetch(tokenClient);
+        assertEquals(0, handler.requestTokens.size());
+
+        tokenClient.fetchRequestToken();
+
+        // served from the cache on the calling thread, no need to wait for a callback
+        assertEquals(1, handler.requestTokens.size());
+        assertEquals(1, provider.getRequestCount(OAUTH1_REQUEST_TOKEN_PATH));
+    }
+
+    @Test
+    public void expiredPrefetchIsFetchedAgain() throws Exception {
+        OAuthTokenClient tokenClient = newTokenClient(provider.api10a());
+        tokenClient.setRequestTokenTtl(TTL_MILLIS);
+
+        tokenClient.prefetchRequestToken();
+        awaitPrefetch(tokenClient);
+        SystemClock.setCurrentTimeMillis(SystemClock.elapsedRealtime() + TTL_MILLIS);
+        tokenClient.fetchRequestToken();
+        handler.await(1);
+
+        assertEquals(2, provider.getRequestCount(OAUTH1_REQUEST_TOKEN_PATH));
+        assertEquals("request-token-2", requestTokenValue(handler.requestTokens.get(0)));
+    }
+
+    @Test
+    public void connectDuringPrefetchIsDeliveredOnce() throws Exception {
+        provider.setLatency(SLOW_LATENCY_MILLIS);
+        OAuthTokenClient tokenClient = newTokenClient(provider.api10a());
+
+        tokenClient.prefetchRequestToken();
+        assertTrue(tokenClient.isPrefetchInFlight());
+        tokenClient.fetchRequestToken();
+        handler.await(1);
+
+        assertEquals(1, handler.requestTokens.size());
+        assertEquals(1, provider.getRequestCount(OAUTH1_REQUEST_TOKEN_PATH));
+        assertFalse(tokenClient.isPrefetchInFlight());
+    }
+
+    @Test
+    public void repeatedConnectDuringPrefetchIsDeliveredOnce() throws Exception {
+        provider.setLatency(SLOW_LATENCY_MILLIS);
+        OAuthTokenClient tokenClient = newTokenClient(provider.api10a());
+
+        tokenClient.prefetchRequestToken();
+        assertTrue(tokenClient.isPrefetchInFlight());
+        tokenClient.fetchRequestToken();
+        tokenClient.fetchRequestToken();
+        handler.await(1);
+
+        assertEquals(1, handler.requestTokens.size());
+        assertEquals(0, handler.failures.size());
+        assertEquals(1, provider.getRequestCount(OAUTH1_REQUEST_TOKEN_PATH));
+    }
+
+    @Test
+    public void failedPrefetchIsSilentWithoutConnect() throws Exception {
+        provider.setErrorRate(1);
+        OAuthTokenClient tokenClient = newTokenClient(provider.api10a());
+
+        tokenClient.prefetchRequestToken();
+        awaitPrefetch(tokenClient);
+
+        assertEquals(1, provider.getInjectedErrorCount());
+        assertEquals(0, handler.requestTokens.size());
+        assertEquals(0, handler.failures.size());
+    }
+
+    @Test
+    public void failedPrefetchIsReportedToWaitingConnect() throws Exception {
+        provider.setLatency(SLOW_LATENCY_MILLIS).setErrorRate(1);
+        OAuthTokenClient tokenClient = newTokenClient(provider.api10a());
+
+        tokenClient.prefetchRequestToken();
+        assertTrue(tokenClient.isPrefetchInFlight());
+        tokenClient.fetchRequestToken();
+        handler.await(1);
+
+        assertEquals(1, handler.failures.size());
+        assertEquals(0, handler.requestTokens.size());
+        assertEquals(1, provider.getRequestCount(OAUTH1_REQUEST_TOKEN_PATH));
+    }
+
+    @Test
+    public void prefetchedTokenIsHandedOutOnce() throws Exception {
+        OAuthTokenClient tokenClient = newTokenClient(provider.api10a());
+
+        tokenClient.prefetchRequestToken();
+        awaitPrefetch(tokenClient);
+        tokenClient.fetchRequestToken();
+        tokenClient.fetchRequestToken();
+        handler.await(2);
+
+        // request tokens are single use, so the second connect must not reuse the prefetched one
+        assertEquals(2, provider.getRequestCount(OAUTH1_REQUEST_TOKEN_PATH));
+        assertNotEquals(requestTokenValue(handler.requestTokens.get(0)),
+                requestTokenValue(handler.requestTokens.get(1)));
+    }
+
+    @Test
+    public void oAuth2PrefetchNeverExpires() throws Exception {
+        OAuthTokenClient tokenClient = newTokenClient(provider.api20());
+
+        tokenClient.prefetchRequestToken();
+        SystemClock.setCurrentTimeMillis(SystemClock.elapsedRealtime() + TimeUnit.DAYS.toMillis(365));
+        tokenClient.fetchRequestToken();
+
+        assertEquals(1, handler.authorizeUrls.size());
+        assertTrue(handler.authorizeUrls.get(0).startsWith(provider.url(MockOAuthProvider.OAUTH2_AUTHORIZE_PATH)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveTtlIsRejected() {
+        newTokenClient(provider.api10a()).setRequestTokenTtl(0);
+    }
+
+    private OAuthTokenClient newTokenClient(BaseApi api) {
+        return new OAuthTokenClient(api, CONSUMER_KEY, CONSUMER_SECRET, CALLBACK_URL, null, handler);
+    }
+
+    private static void awaitPrefetch(OAuthTokenClient tokenClient) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (tokenClient.isPrefetchInFlight()) {
+            assertTrue("prefetch did not complete", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static String requestTokenValue(Token token) {
+        return ((OAuth1RequestToken) token).getToken();
+    }
+
+    // Records every callback so the tests can check nothing is delivered twice or dropped
+    private static class RecordingHandler implements OAuthTokenClient.OAuthTokenHandler {
+        final List<Token> requestTokens = Collections.synchronizedList(new ArrayList<Token>());
+        final List<String> authorizeUrls = Collections.synchronizedList(new ArrayList<String>());
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        private final Semaphore callbacks = new Semaphore(0);
+
+        @Override
+        public void onReceivedRequestToken(Token requestToken, String authorizeUrl, String oAuthVersion) {
+            requestTokens.add(requestToken);
+            authorizeUrls.add(authorizeUrl);
+            callbacks.release();
+        }
+
+        @Override
+        public void onReceivedAccessToken(Token accessToken, String oAuthVersion) {
+            callbacks.release();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            failures.add(e);
+            callbacks.release();
+        }
+
+        void await(int count) throws InterruptedException {
+            assertTrue("expected " + count + " callbacks",
+                    callbacks.tryAcquire(count, TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+}